@@ -0,0 +1,38 @@
+import java.util.List;
+
+/**
+ * Caplet added to fat capsules built with the package index, which launches the app with
+ * {@link CapsuleIndexClassLoader} as the system class loader so each embedded jar is only opened once it is needed.
+ *
+ * Requires Capsule 1.0+.
+ */
+public class CapsuleIndexCaplet extends Capsule {
+
+	private static final String CLASS_LOADER_PROPERTY = "java.system.class.loader";
+
+	public CapsuleIndexCaplet(final Capsule pred) {
+		super(pred);
+	}
+
+	@Override
+	protected ProcessBuilder prelaunch(final List<String> jvmArgs, final List<String> args) {
+		final ProcessBuilder pb = super.prelaunch(jvmArgs, args);
+		final List<String> command = pb.command();
+
+		final int classPathIndex = command.indexOf("-classpath");
+		if (classPathIndex < 0 || classPathIndex + 1 >= command.size()) return pb;
+		for (final String arg : command) {
+			if (arg.startsWith("-D" + CLASS_LOADER_PROPERTY + "=")) {
+				log(LOG_VERBOSE, "System class loader already set, not using the package index.");
+				return pb;
+			}
+		}
+
+		// only the capsule jar stays on the classpath, the class loader gets the rest from the index
+		final String classPath = command.get(classPathIndex + 1);
+		command.set(classPathIndex + 1, getJarFile().toString());
+		command.add(classPathIndex, "-D" + CapsuleIndexClassLoader.CLASS_PATH_PROPERTY + "=" + classPath);
+		command.add(classPathIndex, "-D" + CLASS_LOADER_PROPERTY + "=" + CapsuleIndexClassLoader.class.getName());
+		return pb;
+	}
+}
@@ -0,0 +1,252 @@
+import java.io.*;
+import java.net.JarURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * The system class loader used by {@link CapsuleIndexCaplet} to run the app of a fat capsule.
+ *
+ * The JVM is started with only the capsule jar on its classpath, and the app's real classpath is passed in the
+ * {@link #CLASS_PATH_PROPERTY} system property (and restored to {@code java.class.path} once the loader is built).
+ * The classpath is searched in order as usual, except that a jar listed in the capsule's package index is skipped
+ * unless the index lists the package being looked up, so it is only opened once one of its packages is requested.
+ * Anything else on the classpath (directories, multi-release jars, jars not in the index) is always searched.
+ */
+public class CapsuleIndexClassLoader extends URLClassLoader {
+
+	public static final String INDEX_NAME = "META-INF/capsule-index.list"; // also used by CapsuleMojo to write the index
+	public static final String CLASS_PATH_PROPERTY = "capsule.index.classPath";
+
+	static {
+		ClassLoader.registerAsParallelCapable();
+	}
+
+	private final List<URL> urls = new CopyOnWriteArrayList(); // the app's full classpath, as returned by getURLs()
+	private final List<File> classPath = new CopyOnWriteArrayList(); // entries searched by this loader, in classpath order
+	private final Map<File, Set<String>> indexedJars = new HashMap(); // jar -> packages, only for jars in the index
+	private final Map<File, JarFile> openJars = new HashMap();
+	private final Map<File, URLClassLoader> entryLoaders = new HashMap(); // for the entries not in the index
+	private final Set<String> definedPackages = new HashSet();
+
+	public CapsuleIndexClassLoader(final ClassLoader parent) throws IOException {
+		super(new URL[0], parent);
+
+		final String appClassPath = System.getProperty(CLASS_PATH_PROPERTY);
+		if (appClassPath == null) return;
+
+		final Map<String, List<String>> index = readIndex(parent);
+		final Set<String> parentClassPath = new HashSet(Arrays.asList(System.getProperty("java.class.path").split(File.pathSeparator)));
+		for (final String element : appClassPath.split(File.pathSeparator)) {
+			if (element.isEmpty()) continue;
+
+			final File file = new File(element);
+			urls.add(file.toURI().toURL());
+			if (parentClassPath.contains(element)) continue; // the parent already searches it
+
+			final List<String> jarPackages = file.isFile() ? index.get(file.getName()) : null;
+			if (jarPackages != null) indexedJars.put(file, new HashSet(jarPackages));
+			classPath.add(file);
+		}
+
+		// the app sees its real classpath, not just the capsule jar the JVM was started with
+		System.setProperty("java.class.path", appClassPath);
+	}
+
+	@Override
+	public URL[] getURLs() {
+		return urls.toArray(new URL[0]);
+	}
+
+	@Override
+	protected Class<?> findClass(final String name) throws ClassNotFoundException {
+		final String path = name.replace('.', '/') + ".class";
+		final String packageName = getIndexName(path);
+		for (final File entry : classPath) {
+			try {
+				final Set<String> jarPackages = indexedJars.get(entry);
+				if (jarPackages == null) {
+					final URL url = getEntryLoader(entry).findResource(path);
+					if (url != null) return defineClass(name, url, entry.toURI().toURL());
+				} else if (jarPackages.contains(packageName)) {
+					final JarFile jarFile = openJar(entry);
+					final JarEntry jarEntry = jarFile.getJarEntry(path);
+					if (jarEntry != null) return defineClass(name, entry, jarFile, jarEntry);
+				}
+			} catch (final IOException ignore) {} // same as URLClassLoader, unreadable entries have no classes
+		}
+		throw new ClassNotFoundException(name);
+	}
+
+	@Override
+	public URL findResource(final String name) {
+		final List<URL> found = findResources(name, true);
+		return found.isEmpty() ? null : found.get(0);
+	}
+
+	@Override
+	public Enumeration<URL> findResources(final String name) {
+		return Collections.enumeration(findResources(name, false));
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (openJars) {
+			for (final JarFile jarFile : openJars.values()) jarFile.close();
+			openJars.clear();
+		}
+		synchronized (entryLoaders) {
+			for (final URLClassLoader entryLoader : entryLoaders.values()) entryLoader.close();
+			entryLoaders.clear();
+		}
+		super.close();
+	}
+
+	/**
+	 * Called by the JVM when a java agent jar has to be added to the system class loader.
+	 */
+	void appendToClassPathForInstrumentation(final String path) throws MalformedURLException {
+		final File file = new File(path);
+		urls.add(file.toURI().toURL());
+		classPath.add(file);
+	}
+
+	private List<URL> findResources(final String name, final boolean first) {
+		final String packageName = getIndexName(name);
+		final List<URL> found = new ArrayList();
+		for (final File entry : classPath) {
+			try {
+				final Set<String> jarPackages = indexedJars.get(entry);
+				if (jarPackages == null) {
+					if (first) {
+						final URL url = getEntryLoader(entry).findResource(name);
+						if (url != null) found.add(url);
+					} else {
+						found.addAll(Collections.list(getEntryLoader(entry).findResources(name)));
+					}
+				} else if (packageName == null || jarPackages.contains(packageName)) {
+					if (openJar(entry).getJarEntry(name) != null) found.add(getEntryURL(entry, name));
+				}
+			} catch (final IOException ignore) {} // same as URLClassLoader, unreadable entries have no resources
+			if (first && !found.isEmpty()) break;
+		}
+		return found;
+	}
+
+	/**
+	 * The name the index lists an entry under, or null for META-INF which isn't indexed (so is in every jar).
+	 */
+	private static String getIndexName(final String name) {
+		if (name.startsWith("META-INF/")) return null;
+
+		// as per INDEX.LIST, root level entries are indexed by their name and all others by their directory
+		final int lastSlash = name.lastIndexOf('/');
+		return lastSlash < 0 ? name : name.substring(0, lastSlash);
+	}
+
+	private JarFile openJar(final File jar) throws IOException {
+		synchronized (openJars) {
+			JarFile jarFile = openJars.get(jar);
+			if (jarFile == null) {
+				jarFile = new JarFile(jar);
+				openJars.put(jar, jarFile);
+			}
+			return jarFile;
+		}
+	}
+
+	private URLClassLoader getEntryLoader(final File entry) throws MalformedURLException {
+		synchronized (entryLoaders) {
+			URLClassLoader entryLoader = entryLoaders.get(entry);
+			if (entryLoader == null) {
+				entryLoader = new URLClassLoader(new URL[] { entry.toURI().toURL() }, null);
+				entryLoaders.put(entry, entryLoader);
+			}
+			return entryLoader;
+		}
+	}
+
+	private Class<?> defineClass(final String name, final File jar, final JarFile jarFile, final JarEntry entry) throws IOException {
+		final byte[] bytes = read(jarFile.getInputStream(entry), entry.getSize());
+		final URL jarURL = jar.toURI().toURL();
+		defineClassPackage(name, jarFile.getManifest(), jarURL);
+
+		// the code signers are only known once the entry has been read
+		return defineClass(name, bytes, 0, bytes.length, new CodeSource(jarURL, entry.getCodeSigners()));
+	}
+
+	private Class<?> defineClass(final String name, final URL url, final URL entryURL) throws IOException {
+		final URLConnection connection = url.openConnection();
+		final byte[] bytes = read(connection.getInputStream(), connection.getContentLengthLong());
+
+		Manifest manifest = null;
+		CodeSigner[] signers = null;
+		if (connection instanceof JarURLConnection) {
+			final JarURLConnection jarConnection = (JarURLConnection) connection;
+			manifest = jarConnection.getManifest();
+			signers = jarConnection.getJarEntry().getCodeSigners();
+		}
+		defineClassPackage(name, manifest, entryURL);
+		return defineClass(name, bytes, 0, bytes.length, new CodeSource(entryURL, signers));
+	}
+
+	private void defineClassPackage(final String className, final Manifest manifest, final URL url) {
+		final int lastDot = className.lastIndexOf('.');
+		if (lastDot < 0) return;
+
+		final String packageName = className.substring(0, lastDot);
+		synchronized (definedPackages) {
+			if (definedPackages.contains(packageName)) return;
+			if (manifest != null) definePackage(packageName, manifest, url);
+			else definePackage(packageName, null, null, null, null, null, null, null);
+			definedPackages.add(packageName);
+		}
+	}
+
+	private static byte[] read(final InputStream input, final long size) throws IOException {
+		try {
+			final ByteArrayOutputStream output = new ByteArrayOutputStream(size > 0 ? (int) size : 4096);
+			final byte[] buffer = new byte[8192];
+			int read;
+			while ((read = input.read(buffer)) != -1) output.write(buffer, 0, read);
+			return output.toByteArray();
+		} finally {
+			input.close();
+		}
+	}
+
+	private static URL getEntryURL(final File jar, final String name) throws MalformedURLException {
+		return new URL("jar:" + jar.toURI().toURL() + "!/" + name);
+	}
+
+	private static Map<String, List<String>> readIndex(final ClassLoader parent) throws IOException {
+		final Map<String, List<String>> index = new HashMap();
+		final InputStream input = parent.getResourceAsStream(INDEX_NAME);
+		if (input == null) return index;
+
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+		try {
+			// skip the header section, then read blocks of a jar name followed by its packages
+			String line;
+			while ((line = reader.readLine()) != null && !line.isEmpty()) ;
+
+			List<String> jarPackages = null;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) jarPackages = null;
+				else if (jarPackages == null) index.put(line, jarPackages = new ArrayList<String>());
+				else jarPackages.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return index;
+	}
+}
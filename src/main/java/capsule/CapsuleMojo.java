@@ -42,6 +42,13 @@ public class CapsuleMojo extends AbstractMojo {
 	public static final String EXEC_PREFIX = "#!/bin/sh\n\nexec java -jar \"$0\" \"$@\"\n\n";
 	public static final String EXEC_TRAMPOLINE_PREFIX = "#!/bin/sh\n\nexec java -Dcapsule.trampoline -jar \"$0\" \"$@\"\n\n";
 
+	public static final String INDEX_CAPLET_NAME = "CapsuleIndexCaplet";
+	public static final String INDEX_CLASS_LOADER_NAME = "CapsuleIndexClassLoader";
+	public static final String[] INDEX_CAPLET_CLASSES = { INDEX_CAPLET_NAME + ".class", INDEX_CLASS_LOADER_NAME + ".class" };
+	public static final String INDEX_NAME = getIndexClassLoaderConstant("INDEX_NAME"); // defined once, by the class loader reading it
+	public static final String CONFLICTS_NAME = "META-INF/capsule-conflicts.list";
+	public static final String PROJECT_CLASSES_NAME = "(project classes)";
+
 	public static final String EXEC_PLUGIN_KEY = "org.codehaus.mojo:exec-maven-plugin";
 
 	public static enum Type {
@@ -89,6 +96,8 @@ public class CapsuleMojo extends AbstractMojo {
 	private String chmod;
 	@Parameter(property = "capsule.trampoline", defaultValue = "false")
 	private String trampoline;
+	@Parameter(property = "capsule.index", defaultValue = "false")
+	private String index;
 	@Parameter(property = "capsule.types")
 	private String types;
 	@Parameter(property = "capsule.caplets")
@@ -227,6 +236,8 @@ public class CapsuleMojo extends AbstractMojo {
 		if (!output.exists()) output.mkdirs();
 
 		info("Using Capsule Version: " + capsuleVersion.toString());
+		if (buildFat && buildIndex() && !useIndexCaplet())
+			warn("The index caplet requires Capsule 1.0+, the package index will be added to the fat capsule without it.");
 		debug("Output Directory: " + output.toString());
 
 		try {
@@ -308,14 +319,21 @@ public class CapsuleMojo extends AbstractMojo {
 		// add manifest
 		addManifest(jarStream, null, Type.fat);
 
+		// jar -> packages (in embedding order) and class -> jars, only populated if the index is enabled
+		final Map<String, Set<String>> jarIndex = new LinkedHashMap();
+		final Map<String, Set<String>> classIndex = new TreeMap();
+		final boolean buildIndex = buildIndex();
+
 		// add main jar
 		try {
 			final File mainJarFile = new File(this.buildDir, this.finalName + ".jar");
 			addToJar(mainJarFile.getName(), new FileInputStream(mainJarFile), jarStream);
+			if (buildIndex) indexJar(mainJarFile, "Project jar", jarIndex, classIndex);
 		} catch (final FileNotFoundException e) { // if project jar wasn't built (perhaps the mvn package wasn't run, and only the mvn compile was run)
 			// add compiled project classes instead
 			warn("Couldn't add main jar file to fat capsule, adding the project classes directly instead.");
 			this.addCompiledProjectClasses(jarStream);
+			if (buildIndex) indexCompiledProjectClasses(classIndex);
 		}
 
 		// add dependencies
@@ -324,15 +342,22 @@ public class CapsuleMojo extends AbstractMojo {
 				warn("Dependency[" + artifact + "] file not found, thus will not be added to fat jar.");
 			} else {
 				addToJar(artifact.getFile().getName(), new FileInputStream(artifact.getFile()), jarStream);
+				if (buildIndex) indexJar(artifact.getFile(), "Dependency[" + artifact + "]", jarIndex, classIndex);
 			}
 		}
 
+		// add the package index and any split package / duplicate class conflicts
+		if (buildIndex) addIndex(jarStream, jarIndex, classIndex);
+
 		// add Capsule.class
 		this.addToJar(DEFAULT_CAPSULE_CLASS, new ByteArrayInputStream(getCapsuleClass()), jarStream);
 
 		// add custom capsule class (if exists)
 		addCapletClasses(jarStream);
 
+		// add the caplet that loads the app through the package index
+		if (useIndexCaplet()) addIndexCapletClasses(jarStream);
+
 		// add some files and folders to the capsule
 		addFileSets(jarStream);
 
@@ -380,9 +405,12 @@ public class CapsuleMojo extends AbstractMojo {
 			for (final Map.Entry<String, String> entry : additionalAttributes.entrySet())
 				mainAttributes.put(new Attributes.Name(entry.getKey()), entry.getValue());
 
-		// caplets
-		if (this.caplets != null && !this.caplets.isEmpty())
-			mainAttributes.put(new Attributes.Name("Caplets"), this.caplets);
+		// caplets (the index caplet goes last so it sees the final launch command)
+		String capletsString = this.caplets != null ? this.caplets : "";
+		if (type == Type.fat && useIndexCaplet())
+			capletsString = capletsString.isEmpty() ? INDEX_CAPLET_NAME : capletsString + " " + INDEX_CAPLET_NAME;
+		if (!capletsString.isEmpty())
+			mainAttributes.put(new Attributes.Name("Caplets"), capletsString);
 
 		// custom user defined manifest entries (will override any before)
 		if (this.manifest != null)
@@ -450,6 +478,135 @@ public class CapsuleMojo extends AbstractMojo {
 		}
 	}
 
+	private void indexJar(final File file, final String label, final Map<String, Set<String>> jarIndex, final Map<String, Set<String>> classIndex) {
+		final String jarName = file.getName();
+		if (jarIndex.containsKey(jarName)) { // addToJar will have skipped it as a duplicate entry too
+			warn(label + " has the same file name as an already embedded jar, thus will not be indexed.");
+			return;
+		}
+
+		JarFile jarFile = null;
+		try {
+			jarFile = new JarFile(file);
+
+			// multi-release jars are left out of the index (but not the conflict checks), as the index only knows
+			// about base entries and so the caplet would miss the versioned classes under META-INF/versions/
+			final Manifest jarManifest = jarFile.getManifest();
+			final boolean multiRelease = jarManifest != null && "true".equalsIgnoreCase(jarManifest.getMainAttributes().getValue("Multi-Release"));
+			final Set<String> packages = new TreeSet();
+
+			final Enumeration<JarEntry> entries = jarFile.entries();
+			while (entries.hasMoreElements()) {
+				final JarEntry entry = entries.nextElement();
+				final String name = entry.getName();
+				if (entry.isDirectory() || name.startsWith("META-INF/")) continue; // includes META-INF/versions/, see above
+				if (name.equals("module-info.class")) continue; // every modular jar has its own, never loaded from the classpath
+
+				// as per INDEX.LIST, root level entries are indexed by their name and all others by their directory
+				final int lastSlash = name.lastIndexOf('/');
+				packages.add(lastSlash < 0 ? name : name.substring(0, lastSlash));
+				if (name.endsWith(".class")) putIndex(classIndex, name, jarName);
+			}
+
+			if (multiRelease) debug(label + " is a multi-release jar, thus will not be indexed.");
+			else jarIndex.put(jarName, packages);
+		} catch (final IOException e) {
+			warn(label + " could not be read as a jar (" + e.getMessage() + "), thus will not be indexed.");
+		} finally {
+			if (jarFile != null) try { jarFile.close(); } catch (final IOException ignore) {}
+		}
+	}
+
+	private void indexCompiledProjectClasses(final Map<String, Set<String>> classIndex) throws IOException {
+		// the loose classes are found through the capsule jar itself so only need to be in the conflict checks
+		final Path classesDir = new File(this.buildDir, "classes").toPath();
+		Files.walkFileTree(classesDir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(final Path path, final BasicFileAttributes attrs) {
+				final String name = classesDir.relativize(path).toString().replace(File.separatorChar, '/');
+				if (name.endsWith(".class") && !name.equals("module-info.class")) putIndex(classIndex, name, PROJECT_CLASSES_NAME);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private void addIndex(final JarOutputStream jar, final Map<String, Set<String>> jarIndex, final Map<String, Set<String>> classIndex) throws IOException {
+		int packages = 0;
+		final StringBuilder indexList = new StringBuilder("JarIndex-Version: 1.0\n\n");
+		for (final Map.Entry<String, Set<String>> entry : jarIndex.entrySet()) {
+			indexList.append(entry.getKey()).append('\n');
+			for (final String packageName : entry.getValue()) indexList.append(packageName).append('\n');
+			indexList.append('\n');
+			packages += entry.getValue().size();
+		}
+		addToJar(INDEX_NAME, new ByteArrayInputStream(indexList.toString().getBytes("UTF-8")), jar);
+		debug("Indexed " + packages + " packages across " + jarIndex.size() + " jars.");
+
+		// split packages are worked out from the classes only, so resource directories shared across jars are not reported
+		final Map<String, Set<String>> classPackages = new TreeMap();
+		for (final Map.Entry<String, Set<String>> entry : classIndex.entrySet()) {
+			final int lastSlash = entry.getKey().lastIndexOf('/');
+			if (lastSlash < 0) continue; // default package
+			for (final String jarName : entry.getValue())
+				putIndex(classPackages, entry.getKey().substring(0, lastSlash), jarName);
+		}
+
+		final StringBuilder conflictsList = new StringBuilder();
+		int splitPackages = 0, duplicateClasses = 0;
+		for (final Map.Entry<String, Set<String>> entry : classPackages.entrySet()) {
+			if (entry.getValue().size() > 1) {
+				conflictsList.append("Split-Package: ").append(entry.getKey()).append(joinIndex(entry.getValue())).append('\n');
+				splitPackages++;
+			}
+		}
+		for (final Map.Entry<String, Set<String>> entry : classIndex.entrySet()) {
+			if (entry.getValue().size() > 1) {
+				conflictsList.append("Duplicate-Class: ").append(entry.getKey()).append(joinIndex(entry.getValue())).append('\n');
+				duplicateClasses++;
+			}
+		}
+		if (conflictsList.length() > 0) {
+			addToJar(CONFLICTS_NAME, new ByteArrayInputStream(conflictsList.toString().getBytes("UTF-8")), jar);
+			warn("Found " + splitPackages + " split package(s) and " + duplicateClasses + " duplicate class(es), see " + CONFLICTS_NAME + " in the fat capsule.");
+		}
+	}
+
+	private static void putIndex(final Map<String, Set<String>> index, final String key, final String jarName) {
+		if (!index.containsKey(key)) index.put(key, new LinkedHashSet<String>());
+		index.get(key).add(jarName);
+	}
+
+	private static String joinIndex(final Set<String> jarNames) {
+		final StringBuilder joined = new StringBuilder();
+		for (final String jarName : jarNames) joined.append(' ').append(jarName);
+		return joined.toString();
+	}
+
+	private void addIndexCapletClasses(final JarOutputStream jarStream) throws IOException {
+		for (final String capletClass : INDEX_CAPLET_CLASSES) {
+			final InputStream capletStream = CapsuleMojo.class.getResourceAsStream("/" + capletClass);
+			if (capletStream == null) throw new IOException("Index caplet class " + capletClass + " not found in the plugin");
+			addToJar(capletClass, capletStream, jarStream);
+		}
+	}
+
+	private static String getIndexClassLoaderConstant(final String name) {
+		// the class loader is in the default package (like the caplet and Capsule itself), so can't be imported
+		try {
+			return (String) Class.forName(INDEX_CLASS_LOADER_NAME, false, CapsuleMojo.class.getClassLoader()).getField(name).get(null);
+		} catch (final ReflectiveOperationException e) {
+			throw new IllegalStateException("Index class loader constant " + name + " not found in the plugin", e);
+		}
+	}
+
+	private boolean buildIndex() {
+		return this.index.equals("true") || this.index.equals("1");
+	}
+
+	private boolean useIndexCaplet() {
+		return buildIndex() && !capsuleVersion.startsWith("0.");
+	}
+
 	private byte[] getCapsuleClass() throws IOException {
 		final JarInputStream capsuleJarInputStream = new JarInputStream(new FileInputStream(resolveCapsule()));
 